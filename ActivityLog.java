@@ -0,0 +1,234 @@
+import javax.swing.AbstractListModel;
+import javax.swing.Timer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+/**
+ * Activity log shown at the bottom of the GUI.
+ * Events are kept in a fixed-size ring buffer, so memory use stays the same
+ * no matter how long the program runs; once full the oldest events are dropped.
+ * Events can be logged from any thread. They are queued and added to the
+ * list in one batch on the Swing thread a few times per second.
+ * The log can also be copied to a rolling file on a background thread.
+ */
+public class ActivityLog extends AbstractListModel<ActivityLog.Event> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of events kept in memory. */
+    public static final int DEFAULT_CAPACITY = 5000;
+    private static final int FLUSH_MS = 200;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    /**
+     * One log entry.
+     *
+     * @param time when the event happened (epoch millis)
+     * @param type event tag such as ADD, CSV or SEARCH
+     * @param text message text without the tag
+     */
+    public record Event(long time, String type, String text) {
+        /** Formats the event as "HH:mm:ss [TYPE] text". */
+        @Override public String toString() {
+            LocalTime t = LocalTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+            return TIME.format(t) + " [" + type + "] " + text;
+        }
+
+        /**
+         * Formats the event for the log file with a full ISO date-time and
+         * zone offset, so entries in rolled files can be placed in time.
+         *
+         * @return "yyyy-MM-ddTHH:mm:ss.SSS+hh:mm [TYPE] text"
+         */
+        public String toFileLine() {
+            ZonedDateTime t = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault());
+            return STAMP.format(t) + " [" + type + "] " + text;
+        }
+    }
+
+    private final Event[] ring;
+    private int head = 0; // index of the oldest event
+    private int size = 0;
+    private final ConcurrentLinkedQueue<Event> pending = new ConcurrentLinkedQueue<>();
+    private final Timer flusher;
+
+    // optional rolling file output, written off the Swing thread
+    private ExecutorService fileWriter;
+    private Path file;
+    private long maxBytes;
+    private int keepFiles;
+    private BufferedWriter out;
+    private long written;
+
+    /** Creates a log that keeps {@link #DEFAULT_CAPACITY} events. */
+    public ActivityLog() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Creates a log with a custom capacity.
+     *
+     * @param capacity maximum number of events kept in memory
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public ActivityLog(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0: " + capacity);
+        ring = new Event[capacity];
+        flusher = new Timer(FLUSH_MS, e -> flush());
+        flusher.start();
+    }
+
+    /**
+     * Queues a message. A leading tag like "[ADD] ..." becomes the event type.
+     * Safe to call from any thread.
+     *
+     * @param m message to log
+     */
+    public void log(String m) {
+        String type = "INFO";
+        String text = m;
+        if (m.startsWith("[")) {
+            int end = m.indexOf(']');
+            if (end > 1) {
+                type = m.substring(1, end);
+                text = m.substring(end + 1).trim();
+            }
+        }
+        log(type, text);
+    }
+
+    /**
+     * Queues a typed event. Safe to call from any thread.
+     *
+     * @param type event tag
+     * @param text message text
+     */
+    public void log(String type, String text) {
+        pending.add(new Event(System.currentTimeMillis(), type, text));
+    }
+
+    /**
+     * Moves queued events into the ring buffer and notifies the list once.
+     * Called by the timer on the Swing thread.
+     */
+    public void flush() {
+        if (pending.isEmpty()) return;
+        List<Event> batch = new ArrayList<>();
+        Event e;
+        while ((e = pending.poll()) != null) batch.add(e);
+
+        int oldSize = size;
+        boolean dropped = false;
+        for (Event ev : batch) {
+            if (size < ring.length) {
+                ring[(head + size) % ring.length] = ev;
+                size++;
+            } else {
+                ring[head] = ev; // overwrite oldest
+                head = (head + 1) % ring.length;
+                dropped = true;
+            }
+        }
+        if (dropped) fireContentsChanged(this, 0, size - 1);
+        else fireIntervalAdded(this, oldSize, size - 1);
+
+        if (fileWriter != null) fileWriter.execute(() -> writeBatch(batch));
+    }
+
+    /** Removes every event from the list. The log file is left as is. */
+    public void clear() {
+        pending.clear();
+        if (size == 0) return;
+        int old = size;
+        head = 0;
+        size = 0;
+        Arrays.fill(ring, null);
+        fireIntervalRemoved(this, 0, old - 1);
+    }
+
+    @Override public int getSize() { return size; }
+
+    @Override public Event getElementAt(int i) { return ring[(head + i) % ring.length]; }
+
+    /**
+     * Starts copying events to a rolling log file. When the file grows past
+     * {@code maxBytes} it is renamed to name.1 (older copies shift up) and a
+     * new file is started.
+     *
+     * @param path log file to append to
+     * @param maxBytes size at which the file is rolled
+     * @param keep number of old files to keep
+     */
+    public void enableFile(Path path, long maxBytes, int keep) {
+        this.file = path;
+        this.maxBytes = maxBytes;
+        this.keepFiles = keep;
+        fileWriter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "activity-log-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Stops the timer, writes what is still queued and closes the log file. */
+    public void close() {
+        flusher.stop();
+        flush();
+        if (fileWriter == null) return;
+        fileWriter.execute(this::closeFile);
+        fileWriter.shutdown();
+        try { fileWriter.awaitTermination(2, TimeUnit.SECONDS); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    // runs on the writer thread only
+    private void writeBatch(List<Event> batch) {
+        try {
+            if (out == null) {
+                out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                written = Files.size(file);
+            }
+            for (Event e : batch) {
+                String line = e.toFileLine() + "\n";
+                out.write(line);
+                written += line.getBytes(StandardCharsets.UTF_8).length;
+            }
+            out.flush();
+            if (written >= maxBytes) roll();
+        } catch (IOException ignored) {
+            closeFile(); // try again with a fresh file on the next batch
+        }
+    }
+
+    private void roll() throws IOException {
+        closeFile();
+        for (int i = keepFiles - 1; i >= 1; i--) {
+            Path from = Path.of(file + "." + i);
+            if (Files.exists(from)) Files.move(from, Path.of(file + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (keepFiles > 0) Files.move(file, Path.of(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        else Files.deleteIfExists(file);
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try { out.close(); } catch (IOException ignored) { }
+        out = null;
+    }
+}
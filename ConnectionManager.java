@@ -1,21 +1,163 @@
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Sets the file path to the SQLite database chosen by the GUI.
+ * Several databases can also be registered as named shards (for example
+ * one .db per shop location). Existing rows are found in whichever shard
+ * holds them (see {@link CustomerDao}); the shard router only decides
+ * where a brand new phone number is stored. A {@link PhoneRouter} also
+ * tells where existing rows are, so no other shard has to be searched.
  * @param path full path to the .db file
  */
 public class ConnectionManager {
 
+    /** Shard name used when only a single database path is set. */
+    public static final String DEFAULT_SHARD = "default";
 
     private static String dbPath = null;
+    private static final Map<String, String> shards = new LinkedHashMap<>();
+    private static Function<String, String> router = null;
+    private static volatile int busyTimeoutMs = -1;
     /**
      * Sets the path to Sqlite database file.
      * @param path full file patch to the .db file
      */
 
     public static void setDatabasePath(String path) { dbPath = path; }
+
+    /**
+     * Sets how long SQLite waits on a locked database before failing with
+     * SQLITE_BUSY. Applied to every new connection.
+     *
+     * @param ms wait in milliseconds, or a negative value for the driver default
+     */
+    public static void setBusyTimeout(int ms) { busyTimeoutMs = ms; }
+
+    /**
+     * Registers a named shard. Once any shard is added, the single
+     * database path is ignored. Until a router is set, new customers go
+     * to the first registered shard.
+     *
+     * @param name shard name, such as a location id
+     * @param path full path to that shard's .db file
+     * @throws IllegalArgumentException if the name or the file is already registered
+     */
+    public static synchronized void addShard(String name, String path) {
+        if (shards.containsKey(name))
+            throw new IllegalArgumentException("Shard already registered: " + name);
+        if (shards.containsValue(path))
+            throw new IllegalArgumentException("Database already registered: " + path);
+        shards.put(name, path);
+        if (router == null) router = fixedRouter(name);
+    }
+
+    /** Removes every shard and the router, going back to single database mode. */
+    public static synchronized void clearShards() {
+        shards.clear();
+        router = null;
+    }
+
+    /**
+     * A router whose answer depends only on the phone number, so every phone
+     * has exactly one shard it can live in. With such a router lookups go
+     * straight to that shard and its primary key keeps phones unique.
+     * Only use one for shards whose rows were all placed by the same router.
+     */
+    public interface PhoneRouter extends Function<String, String> { }
+
+    /**
+     * Sets how phone numbers are mapped to shard names.
+     *
+     * @param r function from normalized phone to a registered shard name
+     */
+    public static synchronized void setShardRouter(Function<String, String> r) { router = r; }
+
+    /**
+     * Returns true if the shard of every stored phone is {@link #shardFor},
+     * that is in single database mode or with a {@link PhoneRouter}.
+     * Otherwise a phone may be stored in any shard and has to be looked for.
+     *
+     * @return true if phones never need to be searched for across shards
+     */
+    public static synchronized boolean routesByPhone() {
+        return shards.size() <= 1 || router instanceof PhoneRouter;
+    }
+
+    /**
+     * Returns the names of all shards, in registration order.
+     * In single database mode this is just {@link #DEFAULT_SHARD}.
+     *
+     * @return shard names
+     */
+    public static synchronized List<String> shardNames() {
+        if (shards.isEmpty()) return List.of(DEFAULT_SHARD);
+        return new ArrayList<>(shards.keySet());
+    }
+
+    /**
+     * Returns the shard a new customer with this phone should be stored in.
+     *
+     * @param phone normalized phone number
+     * @return shard name
+     */
+    public static synchronized String shardFor(String phone) {
+        if (shards.isEmpty()) return DEFAULT_SHARD;
+        return router.apply(phone);
+    }
+
+    /**
+     * Router that sends every new customer to one shard, for example the
+     * location this terminal belongs to. Existing phones can then be in any
+     * shard, so lookups check each shard in turn and their cost grows with
+     * the number of shards.
+     *
+     * @param shard shard name
+     * @return fixed router
+     */
+    public static Function<String, String> fixedRouter(String shard) {
+        return phone -> shard;
+    }
+
+    /**
+     * Router that spreads phones evenly over the registered shards by hash.
+     * The result depends on the number of shards, so only use it for a set
+     * of shards that is not going to grow or shrink.
+     *
+     * @return hash based router
+     */
+    public static PhoneRouter phoneHashRouter() {
+        return phone -> {
+            List<String> names = shardNames();
+            return names.get(Math.floorMod(phone.hashCode(), names.size()));
+        };
+    }
+
+    /**
+     * Router that picks a shard from the leading digits of the phone,
+     * for example the area code of each shop location.
+     *
+     * @param prefixes phone prefix to shard name; the longest matching prefix wins
+     * @param fallback shard used when no prefix matches
+     * @return prefix based router
+     */
+    public static PhoneRouter prefixRouter(Map<String, String> prefixes, String fallback) {
+        Map<String, String> copy = new LinkedHashMap<>(prefixes);
+        return phone -> {
+            String best = null;
+            for (String p : copy.keySet()) {
+                if (phone.startsWith(p) && (best == null || p.length() > best.length())) best = p;
+            }
+            return best == null ? fallback : copy.get(best);
+        };
+    }
      /**
      * Returns an open SQLite connection using the path provided by the GUI.
      *
@@ -23,11 +165,46 @@ public class ConnectionManager {
      * @throws SQLException if the path is missing or a connection cannot be created
      */
     public static Connection getConnection() throws SQLException {
-        if (dbPath == null || dbPath.isBlank())
-            throw new SQLException("Database path not set");
+        return getConnection(shardNames().get(0));
+    }
+
+    /**
+     * Returns an open connection to one shard.
+     *
+     * @param shard shard name from {@link #shardNames()}
+     * @return a live JDBC connection to that shard's database
+     * @throws SQLException if the shard is unknown or a connection cannot be created
+     */
+    public static Connection getConnection(String shard) throws SQLException {
+        String path;
+        synchronized (ConnectionManager.class) {
+            path = shards.isEmpty() ? dbPath : shards.get(shard);
+        }
+        if (path == null || path.isBlank())
+            throw new SQLException(shards.isEmpty() ? "Database path not set" : "Unknown shard: " + shard);
         try {
             Class.forName("org.sqlite.JDBC"); // load driver
         } catch (ClassNotFoundException ignore) { }
-        return DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+        Connection c = DriverManager.getConnection("jdbc:sqlite:" + path);
+        if (busyTimeoutMs >= 0) {
+            try (Statement st = c.createStatement()) {
+                st.execute("PRAGMA busy_timeout = " + busyTimeoutMs);
+            } catch (SQLException e) {
+                c.close();
+                throw e;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns an open connection to the shard a new phone number is routed to.
+     *
+     * @param phone normalized phone number
+     * @return a live JDBC connection
+     * @throws SQLException if a connection cannot be created
+     */
+    public static Connection getConnectionFor(String phone) throws SQLException {
+        return getConnection(shardFor(phone));
     }
 }
@@ -1,12 +1,91 @@
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 /**
  * Data Access Object (DAO) for Customer records. This class talks
  * directly to SQLite to perform create, read, update, and delete
  * operations. All SQL work stays here to keep the rest of the project clean.
  */
 public class CustomerDao {
+
+    // retry policy for SQLITE_BUSY / SQLITE_LOCKED, see configureRetry
+    private static volatile int maxRetries = 5;
+    private static volatile long baseDelayMs = 10;
+    private static volatile long maxDelayMs = 1000;
+
+    // contention counters, read by LoadTest
+    private static final AtomicLong busyErrors = new AtomicLong();
+    private static final AtomicLong retries = new AtomicLong();
+    private static final AtomicLong gaveUp = new AtomicLong();
+
+    /** One unit of JDBC work that can be run again after a busy error. */
+    @FunctionalInterface
+    private interface SqlWork<T> { T run() throws SQLException; }
+
+    /**
+     * Sets how busy or locked database errors are retried. The wait before
+     * retry n is baseDelayMs * 2^n with random jitter, capped at maxDelayMs.
+     *
+     * @param retries     retries before the error is thrown (0 disables retry)
+     * @param baseDelayMs first backoff delay in milliseconds
+     * @param maxDelayMs  longest backoff delay in milliseconds
+     */
+    public static void configureRetry(int retries, long baseDelayMs, long maxDelayMs) {
+        CustomerDao.maxRetries = Math.max(0, retries);
+        CustomerDao.baseDelayMs = Math.max(1, baseDelayMs);
+        CustomerDao.maxDelayMs = Math.max(CustomerDao.baseDelayMs, maxDelayMs);
+    }
+
+    /** @return number of busy/locked errors seen, including ones that were retried */
+    public static long busyErrors() { return busyErrors.get(); }
+    /** @return number of retries performed */
+    public static long retries() { return retries.get(); }
+    /** @return number of operations that were still busy after every retry */
+    public static long gaveUp() { return gaveUp.get(); }
+    /** Resets the contention counters to zero. */
+    public static void resetStats() { busyErrors.set(0); retries.set(0); gaveUp.set(0); }
+
+    /**
+     * Returns true if the error means another connection holds the lock.
+     *
+     * @param e error from the driver
+     * @return true for SQLITE_BUSY or SQLITE_LOCKED (including extended codes)
+     */
+    public static boolean isBusy(SQLException e) {
+        int code = e.getErrorCode() & 0xff;
+        if (code == 5 || code == 6) return true;
+        String m = e.getMessage();
+        return m != null && (m.contains("SQLITE_BUSY") || m.contains("SQLITE_LOCKED")
+                || m.contains("database is locked"));
+    }
+
+    // runs the work, retrying busy errors with exponential backoff
+    private static <T> T withRetry(SqlWork<T> work) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return work.run();
+            } catch (SQLException e) {
+                if (!isBusy(e)) throw e;
+                busyErrors.incrementAndGet();
+                if (attempt >= maxRetries) { gaveUp.incrementAndGet(); throw e; }
+                retries.incrementAndGet();
+                long delay = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt, 20));
+                try {
+                    Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * Creates the customers table if it does not already exist.
      *
@@ -14,21 +93,78 @@ public class CustomerDao {
      */
 
     public static void ensureTable() throws SQLException {
-        try (Connection c = ConnectionManager.getConnection();
-             Statement st = c.createStatement()) {
-            st.executeUpdate("""
-                CREATE TABLE IF NOT EXISTS customers (
-                  phone TEXT PRIMARY KEY,
-                  name TEXT NOT NULL,
-                  address TEXT NOT NULL,
-                  email TEXT
-                )
-            """);
+        for (String shard : ConnectionManager.shardNames()) ensureTable(shard);
+    }
+
+    private static void ensureTable(String shard) throws SQLException {
+        withRetry(() -> {
+            try (Connection c = ConnectionManager.getConnection(shard);
+                 Statement st = c.createStatement()) {
+                st.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS customers (
+                      phone TEXT PRIMARY KEY,
+                      name TEXT NOT NULL,
+                      address TEXT NOT NULL,
+                      email TEXT
+                    )
+                """);
+            }
+            return null;
+        });
+    }
+    /**
+     * Returns the shard that currently holds a phone number. With several
+     * shards each one is checked, so rows are found no matter which
+     * location's database they were first written to.
+     *
+     * @param phone normalized phone number
+     * @return shard name, or null if no shard has this phone
+     * @throws SQLException database failure
+     */
+    public static String locate(String phone) throws SQLException {
+        for (String shard : ConnectionManager.shardNames()) {
+            if (contains(shard, phone)) return shard;
         }
+        return null;
+    }
+
+    private static boolean contains(String shard, String phone) throws SQLException {
+        String sql = "SELECT 1 FROM customers WHERE phone=?";
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql)) {
+                ps.setString(1, phone);
+                try (ResultSet rs = ps.executeQuery()) { return rs.next(); }
+            }
+        });
+    }
+
+    /**
+     * Returns the shard a phone belongs to: the one holding it, or the
+     * router's choice for a phone that is not stored yet. With a
+     * {@link ConnectionManager.PhoneRouter} that is always the router's
+     * choice and no shard is searched.
+     *
+     * @param phone normalized phone number
+     * @return shard name
+     * @throws SQLException database failure
+     */
+    public static String shardOf(String phone) throws SQLException {
+        if (ConnectionManager.routesByPhone()) return ConnectionManager.shardFor(phone);
+        String s = locate(phone);
+        return s != null ? s : ConnectionManager.shardFor(phone);
     }
+
     /**
      * Inserts a new customer into the database. If the phone number
-     * already exists, SQLite will ignore it.
+     * already exists (in any shard), it is ignored.
+     * <p>
+     * With a {@link ConnectionManager.PhoneRouter} the phone can only be in
+     * one shard, whose primary key rejects the duplicate. Otherwise the
+     * other shards are checked before the insert and again after it; if
+     * another location added the same phone in between, this insert is
+     * undone. When two locations race this way both inserts may be undone,
+     * so the phone can end up not added at all, but never stored twice.
      *
      * @param c the customer to insert
      * @return true if inserted successfully, false if ignored
@@ -36,15 +172,31 @@ public class CustomerDao {
      */
     // insert (ignore on dup)
     public static boolean insert(Customer c) throws SQLException {
-        String sql = "INSERT OR IGNORE INTO customers(phone,name,address,email) VALUES(?,?,?,?)";
-        try (Connection cn = ConnectionManager.getConnection();
-             PreparedStatement ps = cn.prepareStatement(sql)) {
-            ps.setString(1, c.getPhoneNumber());
-            ps.setString(2, c.getName());
-            ps.setString(3, c.getAddress());
-            ps.setString(4, c.getEmail());
-            return ps.executeUpdate() > 0;
+        String phone = c.getPhoneNumber();
+        String shard = ConnectionManager.shardFor(phone);
+        if (ConnectionManager.routesByPhone()) return insertInto(shard, c);
+        if (locate(phone) != null || !insertInto(shard, c)) return false;
+        for (String other : ConnectionManager.shardNames()) {
+            if (!other.equals(shard) && contains(other, phone)) {
+                deleteFrom(shard, phone);
+                return false;
+            }
         }
+        return true;
+    }
+
+    private static boolean insertInto(String shard, Customer c) throws SQLException {
+        String sql = "INSERT OR IGNORE INTO customers(phone,name,address,email) VALUES(?,?,?,?)";
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql)) {
+                ps.setString(1, c.getPhoneNumber());
+                ps.setString(2, c.getName());
+                ps.setString(3, c.getAddress());
+                ps.setString(4, c.getEmail());
+                return ps.executeUpdate() > 0;
+            }
+        });
     }
 
     /**
@@ -56,14 +208,17 @@ public class CustomerDao {
      */
         public static boolean update(Customer c) throws SQLException {
         String sql = "UPDATE customers SET name=?, address=?, email=? WHERE phone=?";
-        try (Connection cn = ConnectionManager.getConnection();
-             PreparedStatement ps = cn.prepareStatement(sql)) {
-            ps.setString(1, c.getName());
-            ps.setString(2, c.getAddress());
-            ps.setString(3, c.getEmail());
-            ps.setString(4, c.getPhoneNumber());
-            return ps.executeUpdate() > 0;
-        }
+        String shard = shardOf(c.getPhoneNumber());
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql)) {
+                ps.setString(1, c.getName());
+                ps.setString(2, c.getAddress());
+                ps.setString(3, c.getEmail());
+                ps.setString(4, c.getPhoneNumber());
+                return ps.executeUpdate() > 0;
+            }
+        });
     }
     /**
      * Deletes a customer by phone number.
@@ -73,12 +228,18 @@ public class CustomerDao {
      * @throws SQLException database failure
      */
     public static boolean delete(String phone) throws SQLException {
+        return deleteFrom(shardOf(phone), phone);
+    }
+
+    private static boolean deleteFrom(String shard, String phone) throws SQLException {
         String sql = "DELETE FROM customers WHERE phone=?";
-        try (Connection cn = ConnectionManager.getConnection();
-             PreparedStatement ps = cn.prepareStatement(sql)) {
-            ps.setString(1, phone);
-            return ps.executeUpdate() > 0;
-        }
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql)) {
+                ps.setString(1, phone);
+                return ps.executeUpdate() > 0;
+            }
+        });
     }
     /**
      * Looks up and returns a customer by phone number.
@@ -89,42 +250,232 @@ public class CustomerDao {
      */
     public static Customer find(String phone) throws SQLException {
         String sql = "SELECT phone,name,address,email FROM customers WHERE phone=?";
-        try (Connection cn = ConnectionManager.getConnection();
+        String shard = shardOf(phone);
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql)) {
+                ps.setString(1, phone);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        return new Customer(
+                                rs.getString(1),
+                                rs.getString(2),
+                                rs.getString(3),
+                                rs.getString(4)
+                        );
+                    }
+                    return null;
+                }
+            }
+        });
+    }
+    /**
+     * Lists all customers in alphabetical order. With several shards every
+     * shard is queried in parallel and the sorted results are merged.
+     *
+     * @return list of all Customer objects
+     * @throws SQLException database failure
+     */
+    public static List<Customer> listAll() throws SQLException {
+        List<String> shards = ConnectionManager.shardNames();
+        if (shards.size() == 1) return listAll(shards.get(0));
+
+        List<List<Customer>> parts;
+        try {
+            parts = shards.parallelStream().map(s -> {
+                try { return listAll(s); }
+                catch (SQLException e) { throw new RuntimeException(e); }
+            }).collect(Collectors.toList());
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof SQLException se) throw se;
+            throw e;
+        }
+        return mergeByName(parts);
+    }
+
+    /**
+     * Streams every stored phone number to {@code sink}, shard by shard.
+     * Only the key column is read, so this is cheap even for large tables.
+     *
+     * @param sink receives each phone number
+     * @throws SQLException database failure
+     */
+    public static void forEachPhone(Consumer<String> sink) throws SQLException {
+        for (String shard : ConnectionManager.shardNames()) forEachPhone(shard, sink);
+    }
+
+    /**
+     * Counts the customers in every shard.
+     *
+     * @return number of rows
+     * @throws SQLException database failure
+     */
+    public static long count() throws SQLException {
+        String sql = "SELECT COUNT(*) FROM customers";
+        long total = 0;
+        for (String shard : ConnectionManager.shardNames()) {
+            total += withRetry(() -> {
+                try (Connection cn = ConnectionManager.getConnection(shard);
+                     PreparedStatement ps = cn.prepareStatement(sql);
+                     ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+        }
+        return total;
+    }
+
+    /**
+     * Streams every phone number stored in one shard to {@code sink}.
+     *
+     * @param shard shard name
+     * @param sink  receives each phone number
+     * @throws SQLException database failure
+     */
+    public static void forEachPhone(String shard, Consumer<String> sink) throws SQLException {
+        String sql = "SELECT phone FROM customers";
+        withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) sink.accept(rs.getString(1));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Lists the customers of one shard in alphabetical order.
+     *
+     * @param shard shard name from {@link ConnectionManager#shardNames()}
+     * @return customers stored in that shard
+     * @throws SQLException database failure
+     */
+    public static List<Customer> listAll(String shard) throws SQLException {
+        String sql = "SELECT phone,name,address,email FROM customers ORDER BY name";
+        return withRetry(() -> {
+            List<Customer> out = new ArrayList<>();
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Customer(
+                            rs.getString(1),
+                            rs.getString(2),
+                            rs.getString(3),
+                            rs.getString(4)
+                    ));
+                }
+            }
+            return out;
+        });
+    }
+
+    /**
+     * Returns the smallest and largest rowid in one shard, used to split
+     * the table into ranges for a partitioned export.
+     *
+     * @param shard shard name
+     * @return {min, max}, or {0, -1} if the shard is empty
+     * @throws SQLException database failure
+     */
+    public static long[] rowidBounds(String shard) throws SQLException {
+        String sql = "SELECT MIN(rowid), MAX(rowid), COUNT(*) FROM customers";
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard);
+                 PreparedStatement ps = cn.prepareStatement(sql);
+                 ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getLong(3) == 0) return new long[]{0, -1};
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+            }
+        });
+    }
+
+    /**
+     * Streams the customers whose rowid is in [from, to] to {@code sink},
+     * on a connection of its own. Not retried, since rows may already
+     * have been handed to the sink when an error happens.
+     *
+     * @param shard shard name
+     * @param from  first rowid (inclusive)
+     * @param to    last rowid (inclusive)
+     * @param sink  receives each customer in rowid order
+     * @throws SQLException database failure
+     */
+    public static void forEachInRange(String shard, long from, long to, Consumer<Customer> sink) throws SQLException {
+        String sql = "SELECT phone,name,address,email FROM customers WHERE rowid BETWEEN ? AND ? ORDER BY rowid";
+        try (Connection cn = ConnectionManager.getConnection(shard);
              PreparedStatement ps = cn.prepareStatement(sql)) {
-            ps.setString(1, phone);
+            ps.setLong(1, from);
+            ps.setLong(2, to);
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return new Customer(
+                while (rs.next()) {
+                    sink.accept(new Customer(
                             rs.getString(1),
                             rs.getString(2),
                             rs.getString(3),
                             rs.getString(4)
-                    );
+                    ));
                 }
-                return null;
             }
         }
     }
+
     /**
-     * Lists all customers in alphabetical order.
+     * Inserts or updates many customers of one shard in a single transaction.
      *
-     * @return list of all Customer objects
-     * @throws SQLException database failure
+     * @param shard shard name
+     * @param rows  customers that all belong to {@code shard}
+     * @return {added, updated}
+     * @throws SQLException database failure (the whole batch is rolled back)
      */
-    public static List<Customer> listAll() throws SQLException {
-        String sql = "SELECT phone,name,address,email FROM customers ORDER BY name";
-        List<Customer> out = new ArrayList<>();
-        try (Connection cn = ConnectionManager.getConnection();
-             PreparedStatement ps = cn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
-            while (rs.next()) {
-                out.add(new Customer(
-                        rs.getString(1),
-                        rs.getString(2),
-                        rs.getString(3),
-                        rs.getString(4)
-                ));
+    public static int[] upsertBatch(String shard, List<Customer> rows) throws SQLException {
+        String ins = "INSERT OR IGNORE INTO customers(phone,name,address,email) VALUES(?,?,?,?)";
+        String upd = "UPDATE customers SET name=?, address=?, email=? WHERE phone=?";
+        return withRetry(() -> {
+            try (Connection cn = ConnectionManager.getConnection(shard)) {
+                cn.setAutoCommit(false);
+                try (PreparedStatement pi = cn.prepareStatement(ins);
+                     PreparedStatement pu = cn.prepareStatement(upd)) {
+                    int added = 0, updated = 0;
+                    for (Customer c : rows) {
+                        pi.setString(1, c.getPhoneNumber());
+                        pi.setString(2, c.getName());
+                        pi.setString(3, c.getAddress());
+                        pi.setString(4, c.getEmail());
+                        if (pi.executeUpdate() > 0) { added++; continue; }
+                        pu.setString(1, c.getName());
+                        pu.setString(2, c.getAddress());
+                        pu.setString(3, c.getEmail());
+                        pu.setString(4, c.getPhoneNumber());
+                        if (pu.executeUpdate() > 0) updated++;
+                    }
+                    cn.commit();
+                    return new int[]{added, updated};
+                } catch (SQLException e) {
+                    cn.rollback();
+                    throw e;
+                }
             }
+        });
+    }
+
+    // k-way merge of lists that are each already sorted by name
+    private static List<Customer> mergeByName(List<List<Customer>> parts) {
+        int total = 0;
+        for (List<Customer> p : parts) total += p.size();
+        List<Customer> out = new ArrayList<>(total);
+        // heap entries: {part index, position in part}
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Comparator.comparing(
+                (int[] e) -> parts.get(e[0]).get(e[1]).getName()));
+        for (int i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isEmpty()) heap.add(new int[]{i, 0});
+        }
+        while (!heap.isEmpty()) {
+            int[] e = heap.poll();
+            List<Customer> p = parts.get(e[0]);
+            out.add(p.get(e[1]));
+            if (++e[1] < p.size()) heap.add(e);
         }
         return out;
     }
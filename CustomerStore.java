@@ -1,12 +1,33 @@
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 /**
  * Main logic class that handles everything related to customers.
  * This class validates input, talks to the DAO for database work,
@@ -14,6 +35,14 @@ import java.util.List;
  * operations so the project stays organized and structured.
  */
 public class CustomerStore {
+    /** Name of the manifest file written by {@link #exportPartitioned}. */
+    public static final String MANIFEST = "manifest.csv";
+
+    // built on first duplicate check, then kept in sync by insert/update/delete
+    private DuplicateDetector duplicates;
+    // every phone in the table, for existence checks that skip the database
+    private final PhoneIndex phones;
+
     /**
      * Creates a new store and makes sure the database table exists.
      * Throws a runtime error only if the system cannot continue.
@@ -23,6 +52,14 @@ public class CustomerStore {
         catch (SQLException e) {
             throw new RuntimeException("Failed to ensure Customer table: " + e.getMessage(), e);
         }
+        try {
+            // sized once from the row count (plus room for new customers) so loading never regrows it
+            long rows = CustomerDao.count();
+            phones = new PhoneIndex((int) Math.min(Integer.MAX_VALUE / 2, rows + rows / 10 + 1024));
+            CustomerDao.forEachPhone(phones::add);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to load phone index: " + e.getMessage(), e);
+        }
     }
     /**
      * Normalizes a phone number by removing any non-digit characters.
@@ -50,7 +87,11 @@ public class CustomerStore {
             if (!isValidPhone(phone) || !isValidName(name) || !isValidAddress(addr)) return false;
             if (emailError(email) != null) return false;
 
-            return CustomerDao.insert(new Customer(phone, name, addr, email));
+            Customer n = new Customer(phone, name, addr, email);
+            if (!CustomerDao.insert(n)) { phones.add(phone); return false; } // row exists
+            phones.add(phone);
+            if (duplicates != null) duplicates.index(n);
+            return true;
         } catch (SQLException e) { return false; }
     }
     /**
@@ -69,7 +110,11 @@ public class CustomerStore {
             if (!isValidPhone(phone) || !isValidName(name) || !isValidAddress(addr)) return false;
             if (emailError(email) != null) return false;
 
-            return CustomerDao.update(new Customer(phone, name, addr, email));
+            Customer old = duplicates != null ? CustomerDao.find(phone) : null;
+            Customer n = new Customer(phone, name, addr, email);
+            if (!CustomerDao.update(n)) return false;
+            if (old != null) { duplicates.remove(old); duplicates.index(n); }
+            return true;
         } catch (SQLException e) { return false; }
     }
     /**
@@ -79,8 +124,15 @@ public class CustomerStore {
      * @return true if removed
      */
     public boolean delete(String phoneRaw) {
-        try { return CustomerDao.delete(normalizePhone(phoneRaw)); }
-        catch (SQLException e) { return false; }
+        try {
+            String phone = normalizePhone(phoneRaw);
+            Customer old = duplicates != null ? CustomerDao.find(phone) : null;
+            boolean removed = CustomerDao.delete(phone);
+            phones.remove(phone);
+            if (!removed) return false;
+            if (old != null) duplicates.remove(old);
+            return true;
+        } catch (SQLException e) { return false; }
     }
     /**
      * Returns a customer matching the given phone number.
@@ -92,6 +144,17 @@ public class CustomerStore {
         try { return CustomerDao.find(normalizePhone(phoneRaw)); }
         catch (SQLException e) { return null; }
     }
+    /**
+     * Checks whether a phone number is already taken, using the in-memory
+     * phone index instead of a database query.
+     *
+     * @param phoneRaw phone number to check
+     * @return true if a customer with this phone exists
+     */
+    public boolean exists(String phoneRaw) {
+        return phones.contains(normalizePhone(phoneRaw));
+    }
+
     /**
      * Lists every customer in the system.
      *
@@ -102,6 +165,54 @@ public class CustomerStore {
         catch (SQLException e) { return List.of(); }
     }
 
+    /**
+     * Returns existing customers that look like the same person as {@code c}
+     * (similar name and address, or the same email) under a different phone.
+     *
+     * @param c customer about to be added
+     * @return likely duplicates, best match first; empty if none
+     */
+    public List<Customer> findPossibleDuplicates(Customer c) {
+        if (duplicates == null) {
+            DuplicateDetector d = new DuplicateDetector();
+            d.indexAll(listAll());
+            duplicates = d;
+        }
+        return duplicates.candidatesFor(c);
+    }
+
+    /**
+     * Scans the whole table for groups of customers that are probably the same person.
+     *
+     * @return clusters of two or more customers for review
+     */
+    public List<List<Customer>> findDuplicateClusters() {
+        return new DuplicateDetector().findClusters(listAll());
+    }
+
+    /**
+     * Merges duplicate records into one customer. Blank fields on the kept
+     * record are filled from the duplicates, then the duplicates are deleted.
+     * Nothing is deleted if the kept record cannot be saved.
+     *
+     * @param keep customer record to keep
+     * @param dups records to fold into {@code keep}
+     * @return true if the kept record was saved and every duplicate removed
+     */
+    public boolean merge(Customer keep, List<Customer> dups) {
+        String email = safe(keep.getEmail()).trim();
+        for (Customer d : dups) {
+            if (email.isEmpty() && !safe(d.getEmail()).isBlank()) email = d.getEmail().trim();
+        }
+        if (!update(new Customer(keep.getPhoneNumber(), keep.getName(), keep.getAddress(), email))) return false;
+        boolean ok = true;
+        for (Customer d : dups) {
+            if (normalizePhone(d.getPhoneNumber()).equals(normalizePhone(keep.getPhoneNumber()))) continue;
+            ok &= delete(d.getPhoneNumber());
+        }
+        return ok;
+    }
+
     /**
      * Loads a CSV file and imports the records into the database.
      *
@@ -110,14 +221,22 @@ public class CustomerStore {
      */
     public String loadFromCsv(String path) { return importCsv(Path.of(path)); }
 
+    /**
+     * Imports a CSV file. Rows are first split into new and existing phones
+     * with the phone index, then new rows are inserted and existing rows updated.
+     *
+     * @param csvPath CSV file with phone,name,address,email rows
+     * @return summary message showing total, added, updated, and skipped
+     */
     public String importCsv(Path csvPath) {
         int added=0, updated=0, skipped=0, total=0;
+        duplicates = null; // rows below bypass insert(), rebuild the index on next check
+        List<Customer> fresh = new ArrayList<>();
+        List<Customer> known = new ArrayList<>();
         try (BufferedReader br = Files.newBufferedReader(csvPath, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = br.readLine()) != null) {
+            List<String> cols;
+            while ((cols = readCsvRecord(br)) != null) {
                 total++;
-                if (line.isBlank()) { skipped++; continue; }
-                List<String> cols = parseCsvLine(line);
                 if (cols.size() != 4) { skipped++; continue; }
 
                 String phone = normalizePhone(safe(cols.get(0)).trim());
@@ -131,9 +250,19 @@ public class CustomerStore {
                 }
 
                 Customer c = new Customer(phone, name, addr, email);
-
+                (phones.contains(phone) ? known : fresh).add(c);
+            }
+            // the index can be stale if another terminal wrote the row,
+            // so each branch falls back to the other statement
+            for (Customer c : fresh) {
                 if (CustomerDao.insert(c)) added++;
                 else if (CustomerDao.update(c)) updated++;
+                else { skipped++; continue; }
+                phones.add(c.getPhoneNumber());
+            }
+            for (Customer c : known) {
+                if (CustomerDao.update(c)) updated++;
+                else if (CustomerDao.insert(c)) added++;
                 else skipped++;
             }
         } catch (IOException | SQLException e) {
@@ -162,6 +291,173 @@ public class CustomerStore {
             return true;
         } catch (Exception e) { return false; }
     }
+    /**
+     * Exports the table as several gzip-compressed CSV part files plus a
+     * manifest, for fast offsite backups. Each shard is split into rowid
+     * ranges and every range is written by its own worker thread on its
+     * own connection. The manifest lists each part with its row count and
+     * SHA-256 checksum and is written last.
+     *
+     * @param dir        output directory (created if missing)
+     * @param partitions number of ranges per shard
+     * @return summary message showing parts and rows, or an error message
+     */
+    public String exportPartitioned(Path dir, int partitions) {
+        ExecutorService pool = null;
+        try {
+            Files.createDirectories(dir);
+            List<Callable<String>> tasks = new ArrayList<>();
+            for (String shard : ConnectionManager.shardNames()) {
+                long[] b = CustomerDao.rowidBounds(shard);
+                if (b[1] < b[0]) continue;
+                long span = (b[1] - b[0]) / Math.max(1, partitions) + 1;
+                for (long lo = b[0]; lo <= b[1]; lo += span) {
+                    long from = lo, to = Math.min(b[1], lo + span - 1);
+                    String file = String.format("part-%05d.csv.gz", tasks.size());
+                    tasks.add(() -> writePart(dir.resolve(file), shard, from, to));
+                }
+            }
+            int threads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+            pool = Executors.newFixedThreadPool(threads);
+            List<String> lines = new ArrayList<>();
+            long rows = 0;
+            for (Future<String> f : pool.invokeAll(tasks)) {
+                String line = f.get();
+                lines.add(line);
+                rows += Long.parseLong(line.split(",")[1]);
+            }
+            try (BufferedWriter bw = Files.newBufferedWriter(dir.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+                bw.write("file,rows,sha256\n");
+                for (String line : lines) bw.write(line + "\n");
+            }
+            return "Parts: " + lines.size() + " | Rows: " + rows;
+        } catch (ExecutionException e) {
+            return "Export error: " + e.getCause().getMessage();
+        } catch (IOException | SQLException e) {
+            return "Export error: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Export error: interrupted";
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Restores a partitioned export made by {@link #exportPartitioned}.
+     * Every part is first checksum-verified in parallel without keeping its
+     * rows, so nothing is written unless all parts match the manifest. Parts
+     * are then read again in parallel and each one is written as it is read,
+     * one transaction per shard it touches, so only a few parts are held in
+     * memory at a time. Writes to the same shard take turns.
+     *
+     * @param dir directory holding the manifest and part files
+     * @return summary message showing total, added, updated, and skipped
+     */
+    public String importPartitioned(Path dir) {
+        duplicates = null; // rows below bypass insert(), rebuild the index on next check
+        try {
+            List<String[]> manifest = new ArrayList<>();
+            for (String line : Files.readAllLines(dir.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+                if (line.isBlank() || line.startsWith("file,")) continue;
+                manifest.add(line.split(","));
+            }
+            manifest.parallelStream().forEach(m -> {
+                try { readPart(dir.resolve(m[0]), Long.parseLong(m[1]), m[2], c -> { }); }
+                catch (IOException e) { throw new UncheckedIOException(e); }
+            });
+
+            // rows already stored stay in the shard that holds them
+            Map<String, String> located = new HashMap<>();
+            if (!ConnectionManager.routesByPhone()) {
+                for (String shard : ConnectionManager.shardNames()) {
+                    CustomerDao.forEachPhone(shard, p -> located.put(p, shard));
+                }
+            }
+            Map<String, Object> shardLocks = new ConcurrentHashMap<>();
+            LongAdder total = new LongAdder(), skipped = new LongAdder();
+            LongAdder added = new LongAdder(), updated = new LongAdder();
+            manifest.parallelStream().forEach(m -> {
+                Map<String, List<Customer>> byShard = new HashMap<>();
+                try {
+                    readPart(dir.resolve(m[0]), Long.parseLong(m[1]), m[2], c -> {
+                        total.increment();
+                        if (c == null) { skipped.increment(); return; }
+                        String shard = located.get(c.getPhoneNumber());
+                        if (shard == null) shard = ConnectionManager.shardFor(c.getPhoneNumber());
+                        byShard.computeIfAbsent(shard, k -> new ArrayList<>()).add(c);
+                    });
+                } catch (IOException e) { throw new UncheckedIOException(e); }
+                for (Map.Entry<String, List<Customer>> e : byShard.entrySet()) {
+                    int[] counts;
+                    synchronized (shardLocks.computeIfAbsent(e.getKey(), k -> new Object())) {
+                        try { counts = CustomerDao.upsertBatch(e.getKey(), e.getValue()); }
+                        catch (SQLException ex) { throw new RuntimeException(ex.getMessage(), ex); }
+                    }
+                    added.add(counts[0]);
+                    updated.add(counts[1]);
+                    for (Customer c : e.getValue()) phones.add(c.getPhoneNumber());
+                }
+            });
+            long notWritten = total.sum() - skipped.sum() - added.sum() - updated.sum();
+            return "Total: "+total.sum()+" | Added: "+added.sum()+" | Updated: "+updated.sum()+
+                    " | Skipped: "+(skipped.sum() + notWritten);
+        } catch (UncheckedIOException e) {
+            return "Import error: " + e.getCause().getMessage();
+        } catch (IOException | SQLException | RuntimeException e) {
+            return "Import error: " + e.getMessage();
+        }
+    }
+
+    // writes one rowid range to a gzip part; returns its manifest line
+    private static String writePart(Path file, String shard, long from, long to) throws Exception {
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        long[] rows = new long[1];
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+                new DigestOutputStream(Files.newOutputStream(file), sha), 1 << 16), StandardCharsets.UTF_8))) {
+            IOException[] err = new IOException[1];
+            CustomerDao.forEachInRange(shard, from, to, c -> {
+                if (err[0] != null) return;
+                try {
+                    bw.write(csv(c.getPhoneNumber()) + "," + csv(c.getName()) + "," +
+                            csv(c.getAddress()) + "," + csv(c.getEmail()) + "\n");
+                    rows[0]++;
+                } catch (IOException e) { err[0] = e; }
+            });
+            if (err[0] != null) throw err[0];
+        }
+        return file.getFileName() + "," + rows[0] + "," + HexFormat.of().formatHex(sha.digest());
+    }
+
+    // streams one part into sink (invalid rows as null), then verifies row count and checksum;
+    // sink sees the rows before the check, so callers must not write anything until this returns
+    private static void readPart(Path file, long rows, String sha256, Consumer<Customer> sink) throws IOException {
+        MessageDigest sha;
+        try { sha = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IOException(e); }
+        long found = 0;
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), sha);
+             BufferedReader br = new BufferedReader(new InputStreamReader(
+                     new GZIPInputStream(in, 1 << 16), StandardCharsets.UTF_8))) {
+            List<String> cols;
+            while ((cols = readCsvRecord(br)) != null) {
+                String phone = cols.size() == 4 ? normalizePhone(cols.get(0).trim()) : "";
+                String name  = cols.size() == 4 ? cols.get(1).trim() : "";
+                String addr  = cols.size() == 4 ? cols.get(2).trim() : "";
+                String email = cols.size() == 4 ? cols.get(3).trim() : "";
+                boolean ok = isValidPhone(phone) && isValidName(name) &&
+                        isValidAddress(addr) && emailError(email) == null;
+                sink.accept(ok ? new Customer(phone, name, addr, email) : null);
+                found++;
+            }
+            in.transferTo(OutputStream.nullOutputStream()); // digest any trailing bytes
+        }
+        if (found != rows)
+            throw new IOException(file.getFileName() + ": expected " + rows + " rows, found " + found);
+        if (!HexFormat.of().formatHex(sha.digest()).equalsIgnoreCase(sha256))
+            throw new IOException(file.getFileName() + ": checksum mismatch");
+    }
+
     /**
      * Validates email format. Blank emails are allowed.
      *
@@ -190,18 +486,32 @@ public class CustomerStore {
     public static boolean isValidAddress(String s) { return s != null && !s.isBlank(); }
     public static String safe(String s) { return s == null ? "" : s; }
 
-    // csv helpers
+    // csv helpers (RFC 4180: fields holding a comma, quote or line break are quoted, quotes doubled)
     private static String csv(String s) {
-        return s == null ? "" : s.contains(",") ? "\"" + s.replace("\"","\"\"") + "\"" : s;
+        if (s == null) return "";
+        return s.chars().anyMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')
+                ? "\"" + s.replace("\"","\"\"") + "\"" : s;
     }
-    private static List<String> parseCsvLine(String line) {
+    // reads one record, or null at end of input; a quoted field may span lines and
+    // may follow spaces or tabs (", \"Smith, John\""); those spaces are dropped
+    private static List<String> readCsvRecord(BufferedReader br) throws IOException {
+        int c = br.read();
+        if (c < 0) return null;
         List<String> result = new ArrayList<>();
         StringBuilder sb = new StringBuilder();
-        boolean q=false;
-        for (char c : line.toCharArray()) {
-            if (c=='"') q=!q;
-            else if (c==',' && !q) { result.add(sb.toString()); sb.setLength(0); }
-            else sb.append(c);
+        boolean q = false, start = true;
+        for (; c >= 0; c = br.read()) {
+            if (q) {
+                if (c != '"') { sb.append((char) c); continue; }
+                br.mark(1);
+                if (br.read() == '"') sb.append('"');
+                else { br.reset(); q = false; }
+            } else if (c == '"' && start) { q = true; start = false; sb.setLength(0); }
+            else if (c == ',') { result.add(sb.toString()); sb.setLength(0); start = true; }
+            else if ((c == ' ' || c == '\t') && start) sb.append((char) c);
+            else if (c == '\n') break;
+            else if (c == '\r') { br.mark(1); if (br.read() != '\n') br.reset(); break; }
+            else { sb.append((char) c); start = false; }
         }
         result.add(sb.toString());
         return result;
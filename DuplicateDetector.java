@@ -0,0 +1,356 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+/**
+ * Finds customers that are probably the same person entered more than once
+ * (different phone, typo in the name, different address formatting).
+ * Customers are grouped into blocks by a phonetic name key, a normalized
+ * address key and the email, and only customers that share a block are
+ * compared, so the whole table is never compared pair by pair.
+ * Blocks are scored in parallel and matching pairs are joined into clusters.
+ */
+public class DuplicateDetector {
+
+    /** Default score a pair must reach to be reported as a duplicate. */
+    public static final double DEFAULT_THRESHOLD = 0.90;
+    /** Blocks bigger than this are only compared inside a sliding window. */
+    private static final int MAX_BLOCK = 200;
+    /** Window size used for oversized blocks (sorted by name). */
+    private static final int WINDOW = 25;
+    /** Largest cluster reported; anything bigger is not one person. */
+    public static final int MAX_CLUSTER = 10;
+    /** Surnames less alike than this never match (unless the email is the same). */
+    private static final double MIN_SURNAME = 0.88;
+    /** Full first names less alike than this never match (Jon/John passes, John/Joan does not). */
+    private static final double MIN_FIRST = 0.90;
+
+    // letters of any script are kept, so non-Latin names do not normalize to ""
+    private static final Pattern NON_LETTER = Pattern.compile("[^\\p{L}\\p{M} ]");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^\\p{L}\\p{M}\\p{N} ]");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final double threshold;
+    // incremental index: block key -> customers in that block
+    private final Map<String, List<Customer>> index = new ConcurrentHashMap<>();
+
+    /** Creates a detector using {@link #DEFAULT_THRESHOLD}. */
+    public DuplicateDetector() { this(DEFAULT_THRESHOLD); }
+
+    /**
+     * Creates a detector with a custom match threshold.
+     *
+     * @param threshold score between 0 and 1 a pair must reach to match
+     */
+    public DuplicateDetector(double threshold) { this.threshold = threshold; }
+
+    /**
+     * Batch mode. Scans every customer and returns the groups of likely duplicates.
+     *
+     * Every member of a returned cluster matches the cluster's first record
+     * on its own, and no cluster is bigger than {@link #MAX_CLUSTER}.
+     *
+     * @param customers every customer in the table
+     * @return clusters of two or more customers, largest first
+     */
+    public List<List<Customer>> findClusters(List<Customer> customers) {
+        // normalize every customer once up front, scoring then only compares strings
+        List<Rec> all = customers.parallelStream().map(Rec::new).collect(Collectors.toList());
+        Map<String, List<Integer>> blocks = IntStream.range(0, all.size()).parallel().boxed()
+                .flatMap(i -> all.get(i).keys.stream().map(k -> Map.entry(k, i)))
+                .collect(Collectors.groupingByConcurrent(Map.Entry::getKey,
+                        Collectors.mapping(Map.Entry::getValue, Collectors.toList())));
+
+        int[] parent = IntStream.range(0, all.size()).toArray();
+        blocks.values().parallelStream()
+                .filter(b -> b.size() > 1)
+                .flatMap(b -> matchBlock(all, b).stream())
+                .collect(Collectors.toList())
+                .forEach(p -> union(parent, p[0], p[1]));
+
+        Map<Integer, List<Rec>> groups = new HashMap<>();
+        for (int i = 0; i < all.size(); i++) {
+            groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(all.get(i));
+        }
+        // union-find chains neighbours (A~B, B~C) even when A and C differ,
+        // so each component is re-split around records that match directly
+        return groups.values().parallelStream()
+                .filter(g -> g.size() > 1)
+                .flatMap(g -> splitComponent(g).stream())
+                .sorted(Comparator.comparingInt((List<Customer> g) -> g.size()).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Incremental mode. Adds customers to the block index used by {@link #candidatesFor}.
+     *
+     * @param customers customers to index
+     */
+    public void indexAll(Collection<Customer> customers) {
+        customers.parallelStream().forEach(this::index);
+    }
+
+    /**
+     * Adds one customer to the block index.
+     *
+     * @param c customer to index
+     */
+    public void index(Customer c) {
+        for (String k : blockKeys(c)) {
+            index.computeIfAbsent(k, x -> Collections.synchronizedList(new ArrayList<>())).add(c);
+        }
+    }
+
+    /**
+     * Removes a customer from the block index.
+     *
+     * @param c customer to remove (matched by phone)
+     */
+    public void remove(Customer c) {
+        for (String k : blockKeys(c)) {
+            index.computeIfPresent(k, (x, l) -> {
+                l.removeIf(o -> o.getPhoneNumber().equals(c.getPhoneNumber()));
+                return l.isEmpty() ? null : l;
+            });
+        }
+    }
+
+    /**
+     * Returns indexed customers that look like the same person as {@code c}.
+     * The customer itself (same phone) is never returned.
+     *
+     * @param c customer being added or checked
+     * @return likely duplicates, best match first
+     */
+    public List<Customer> candidatesFor(Customer c) {
+        Rec r = new Rec(c);
+        Map<String, Customer> seen = new HashMap<>();
+        for (String k : r.keys) {
+            List<Customer> b = index.get(k);
+            if (b == null) continue;
+            synchronized (b) {
+                for (Customer o : b) seen.putIfAbsent(o.getPhoneNumber(), o);
+            }
+        }
+        seen.remove(CustomerStore.normalizePhone(c.getPhoneNumber()));
+        Map<Customer, Double> scores = new HashMap<>();
+        for (Customer o : seen.values()) {
+            double sc = score(r, new Rec(o));
+            if (sc >= threshold) scores.put(o, sc);
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<Customer, Double>comparingByValue().reversed())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Scores how alike two customers are.
+     * Same email counts as a match. Otherwise both names need a surname
+     * (a name with no letters never matches), the surnames must be close,
+     * the first initials equal and the house numbers equal; surname, first
+     * name and street are then compared with Jaro-Winkler.
+     *
+     * @param a first customer
+     * @param b second customer
+     * @return score between 0 and 1
+     */
+    public static double score(Customer a, Customer b) {
+        return score(new Rec(a), new Rec(b));
+    }
+
+    private static double score(Rec a, Rec b) {
+        if (!a.email.isEmpty() && a.email.equals(b.email)) return 1.0;
+        if (a.last.isEmpty() || b.last.isEmpty()) return 0.0;
+        // names are compared token by token: surname, then first name
+        double last = jaroWinkler(a.last, b.last);
+        if (last < MIN_SURNAME) return 0.0;
+        if (a.first.isEmpty() != b.first.isEmpty()) return 0.0;
+        double first = 1.0;
+        if (!a.first.isEmpty()) {
+            if (a.first.charAt(0) != b.first.charAt(0)) return 0.0;
+            // an initial ("J") matches any first name with that letter
+            if (a.first.length() > 1 && b.first.length() > 1) first = jaroWinkler(a.first, b.first);
+            if (first < MIN_FIRST) return 0.0; // same surname and home, different person
+        }
+        // different house numbers are different homes
+        if (!a.house.isEmpty() && !b.house.isEmpty() && !a.house.equals(b.house)) return 0.0;
+        double name = 0.6 * last + 0.4 * first;
+        return 0.6 * name + 0.4 * jaroWinkler(a.street, b.street);
+    }
+
+    // greedy split: the first remaining record takes every record that matches it
+    private List<List<Customer>> splitComponent(List<Rec> component) {
+        List<List<Customer>> out = new ArrayList<>();
+        List<Rec> rest = new ArrayList<>(component);
+        while (rest.size() > 1) {
+            Rec centre = rest.remove(0);
+            List<Customer> cluster = new ArrayList<>();
+            cluster.add(centre.c);
+            List<Rec> left = new ArrayList<>();
+            for (Rec r : rest) {
+                if (cluster.size() < MAX_CLUSTER && score(centre, r) >= threshold) cluster.add(r.c);
+                else left.add(r);
+            }
+            if (cluster.size() > 1) out.add(cluster);
+            rest = left;
+        }
+        return out;
+    }
+
+    /**
+     * Jaro-Winkler similarity of two strings.
+     *
+     * @param s first string
+     * @param t second string
+     * @return similarity between 0 (nothing alike) and 1 (equal)
+     */
+    public static double jaroWinkler(String s, String t) {
+        if (s.equals(t)) return 1.0;
+        if (s.isEmpty() || t.isEmpty()) return 0.0;
+        int range = Math.max(0, Math.max(s.length(), t.length()) / 2 - 1);
+        boolean[] sm = new boolean[s.length()];
+        boolean[] tm = new boolean[t.length()];
+        int matches = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int lo = Math.max(0, i - range), hi = Math.min(t.length() - 1, i + range);
+            for (int j = lo; j <= hi; j++) {
+                if (!tm[j] && s.charAt(i) == t.charAt(j)) { sm[i] = tm[j] = true; matches++; break; }
+            }
+        }
+        if (matches == 0) return 0.0;
+        int trans = 0;
+        for (int i = 0, j = 0; i < s.length(); i++) {
+            if (!sm[i]) continue;
+            while (!tm[j]) j++;
+            if (s.charAt(i) != t.charAt(j)) trans++;
+            j++;
+        }
+        double m = matches;
+        double jaro = (m / s.length() + m / t.length() + (m - trans / 2.0) / m) / 3.0;
+        int prefix = 0;
+        while (prefix < Math.min(4, Math.min(s.length(), t.length())) && s.charAt(prefix) == t.charAt(prefix)) prefix++;
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    /**
+     * American Soundex code of a word, e.g. "Robert" -> "R163".
+     *
+     * @param w word to encode
+     * @return four character code, or empty if the word has no letters
+     */
+    public static String soundex(String w) {
+        StringBuilder letters = new StringBuilder(w.length());
+        for (int i = 0; i < w.length(); i++) {
+            char ch = Character.toUpperCase(w.charAt(i));
+            if (ch >= 'A' && ch <= 'Z') letters.append(ch);
+        }
+        String s = letters.toString();
+        if (s.isEmpty()) return "";
+        final String codes = "01230120022455012623010202"; // A..Z
+        StringBuilder sb = new StringBuilder().append(s.charAt(0));
+        char last = codes.charAt(s.charAt(0) - 'A');
+        for (int i = 1; i < s.length() && sb.length() < 4; i++) {
+            char ch = s.charAt(i);
+            char code = codes.charAt(ch - 'A');
+            if (code != '0' && code != last) sb.append(code);
+            if (ch != 'H' && ch != 'W') last = code;
+        }
+        while (sb.length() < 4) sb.append('0');
+        return sb.toString();
+    }
+
+    // blocking keys: phonetic name, normalized address, email
+    static Set<String> blockKeys(Customer c) { return new Rec(c).keys; }
+
+    // returns index pairs in a block that score above the threshold
+    private List<int[]> matchBlock(List<Rec> all, List<Integer> block) {
+        List<int[]> out = new ArrayList<>();
+        List<Integer> b = block;
+        int window = b.size();
+        if (b.size() > MAX_BLOCK) {
+            b = new ArrayList<>(block);
+            b.sort(Comparator.comparing(i -> all.get(i).name));
+            window = WINDOW;
+        }
+        for (int x = 0; x < b.size(); x++) {
+            Rec cx = all.get(b.get(x));
+            for (int y = x + 1; y < b.size() && y <= x + window; y++) {
+                if (score(cx, all.get(b.get(y))) >= threshold) out.add(new int[]{b.get(x), b.get(y)});
+            }
+        }
+        return out;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) { parent[i] = parent[parent[i]]; i = parent[i]; }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a), rb = find(parent, b);
+        if (ra != rb) parent[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+
+    /** A customer with its normalized fields and block keys computed once. */
+    private static final class Rec {
+        final Customer c;
+        final String name, addr, email;
+        final String first, last, house, street;
+        final Set<String> keys = new HashSet<>(4);
+
+        Rec(Customer c) {
+            this.c = c;
+            name = normalizeName(c.getName());
+            addr = normalizeAddress(c.getAddress());
+            email = normalizeEmail(c.getEmail());
+            String[] parts = name.split(" ");
+            last = parts[parts.length - 1];
+            first = parts.length > 1 ? parts[0] : "";
+            if (!last.isEmpty()) {
+                // Soundex only codes A-Z; other scripts block on the surname itself
+                String sx = soundex(last);
+                keys.add("N:" + (sx.isEmpty() ? last : sx) + (first.isEmpty() ? "" : first.charAt(0)));
+            }
+            String[] a = addr.split(" ");
+            boolean numbered = !a[0].isEmpty() && Character.isDigit(a[0].charAt(0));
+            house = numbered ? a[0] : "";
+            street = numbered ? addr.substring(a[0].length()).trim() : addr;
+            if (!addr.isEmpty()) {
+                // house number plus first street word is stable across formatting
+                keys.add("A:" + a[0] + (a.length > 1 ? " " + a[1] : ""));
+            }
+            if (!email.isEmpty()) keys.add("E:" + email);
+        }
+    }
+
+    // normalizers
+    static String normalizeName(String s) {
+        String n = NON_LETTER.matcher(CustomerStore.safe(s).toLowerCase(Locale.ROOT)).replaceAll("");
+        return SPACES.matcher(n).replaceAll(" ").trim();
+    }
+
+    static String normalizeAddress(String s) {
+        String a = NON_ALNUM.matcher(CustomerStore.safe(s).toLowerCase(Locale.ROOT)).replaceAll(" ");
+        a = " " + SPACES.matcher(a).replaceAll(" ").trim() + " ";
+        a = a.replace(" street ", " st ").replace(" avenue ", " ave ").replace(" road ", " rd ")
+             .replace(" drive ", " dr ").replace(" boulevard ", " blvd ").replace(" lane ", " ln ")
+             .replace(" court ", " ct ").replace(" north ", " n ").replace(" south ", " s ")
+             .replace(" east ", " e ").replace(" west ", " w ");
+        return a.trim();
+    }
+
+    static String normalizeEmail(String s) {
+        return CustomerStore.safe(s).trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -2,6 +2,8 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import javax.swing.RowFilter;
@@ -29,7 +31,14 @@ public class GuiApp extends JFrame {
     };
 
     private final JTable table = new JTable(tableModel);
-    private final JTextArea log = new JTextArea(5, 80);
+    private final ActivityLog activity = new ActivityLog();
+    private final JList<ActivityLog.Event> log = new JList<>(activity) {
+        // long entries are cut at the window edge; the tooltip shows the full line
+        @Override public String getToolTipText(java.awt.event.MouseEvent e) {
+            int i = locationToIndex(e.getPoint());
+            return i < 0 ? null : getModel().getElementAt(i).toString();
+        }
+    };
     private final JTextField searchField = new JTextField(18);
     private TableRowSorter<DefaultTableModel> sorter;
     /** Launches Gui for the program */
@@ -50,12 +59,41 @@ public class GuiApp extends JFrame {
 
         JFileChooser fc = new JFileChooser();
         fc.setDialogTitle("Select SQLite Database (.db)");
+        // selecting several files opts into multi-location mode
+        fc.setMultiSelectionEnabled(true);
         if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
             JOptionPane.showMessageDialog(this, "No database selected. Exiting.");
             System.exit(0);
         }
-        String selectedDb = fc.getSelectedFile().getAbsolutePath();
-        ConnectionManager.setDatabasePath(selectedDb);
+        File[] chosen = fc.getSelectedFiles();
+        List<File> picked = new java.util.ArrayList<>(List.of(chosen.length > 0 ? chosen : new File[]{fc.getSelectedFile()}));
+        fc.setMultiSelectionEnabled(false);
+        // other shop locations keep their own .db, often in their own folder;
+        // only asked once several locations were picked, the single-file start is unchanged
+        while (picked.size() > 1 && JOptionPane.showConfirmDialog(this, "Add a location database from another folder?",
+                "Locations", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+            fc.setDialogTitle("Select another location database (.db)");
+            if (fc.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) break;
+            File f = fc.getSelectedFile();
+            if (picked.stream().noneMatch(p -> p.getAbsoluteFile().equals(f.getAbsoluteFile()))) picked.add(f);
+        }
+        String selectedDb;
+        if (picked.size() > 1) {
+            // one shard per file; existing rows are found in whichever file holds them
+            List<String> names = new java.util.ArrayList<>();
+            for (File f : picked) {
+                String shard = shardName(f, names);
+                ConnectionManager.addShard(shard, f.getAbsolutePath());
+                names.add(shard);
+            }
+            JComboBox<String> home = new JComboBox<>(names.toArray(new String[0]));
+            JOptionPane.showMessageDialog(this, home, "Location for new customers", JOptionPane.QUESTION_MESSAGE);
+            ConnectionManager.setShardRouter(ConnectionManager.fixedRouter((String) home.getSelectedItem()));
+            selectedDb = "shards: " + String.join(", ", names) + " | new customers -> " + home.getSelectedItem();
+        } else {
+            selectedDb = picked.get(0).getAbsolutePath();
+            ConnectionManager.setDatabasePath(selectedDb);
+        }
 
 
         store = new CustomerStore();
@@ -68,22 +106,43 @@ public class GuiApp extends JFrame {
         buildToolbar();
         add(buildMainPanel(), BorderLayout.CENTER);
 
-        // Log Sep up
-        log.setEditable(false);
-        log.setLineWrap(true);
-        log.setWrapStyleWord(true);
-        log.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
-            private void scroll(){ log.setCaretPosition(log.getDocument().getLength()); }
-            public void insertUpdate(javax.swing.event.DocumentEvent e){ scroll(); }
-            public void removeUpdate(javax.swing.event.DocumentEvent e){ scroll(); }
-            public void changedUpdate(javax.swing.event.DocumentEvent e){ scroll(); }
+        // Log Sep up: fixed row size so the list only renders visible rows
+        log.setVisibleRowCount(5);
+        log.setFixedCellHeight(log.getFontMetrics(log.getFont()).getHeight() + 2);
+        ToolTipManager.sharedInstance().registerComponent(log);
+        activity.addListDataListener(new ListDataListener() {
+            // runs once per flushed batch, not once per message
+            private void scroll(){ if (activity.getSize() > 0) log.ensureIndexIsVisible(activity.getSize() - 1); }
+            public void intervalAdded(ListDataEvent e){ scroll(); }
+            public void intervalRemoved(ListDataEvent e){ }
+            public void contentsChanged(ListDataEvent e){ scroll(); }
         });
+        String logFile = System.getProperty("maintenance.activityLog");
+        if (logFile != null && !logFile.isBlank()) {
+            activity.enableFile(java.nio.file.Path.of(logFile), 5_000_000, 5);
+        }
 
         // first message
         logMsg("[DB] " + selectedDb);
 
         refreshTable();
     }
+    /**
+     * Picks a unique shard name for a location database: the file name,
+     * or folder/file when several locations use the same file name.
+     *
+     * @param f     location database file
+     * @param taken names already used
+     * @return a name not in {@code taken}
+     */
+    private static String shardName(File f, List<String> taken) {
+        String base = f.getName().replaceFirst("\\.db$", "");
+        String name = base;
+        File dir = f.getAbsoluteFile().getParentFile();
+        if (taken.contains(name) && dir != null) name = dir.getName() + "/" + base;
+        for (int n = 2; taken.contains(name); n++) name = base + "-" + n;
+        return name;
+    }
     /**
      * Shows an information dialog.
      * @param m message text to display
@@ -95,10 +154,10 @@ public class GuiApp extends JFrame {
      */
     private void warn(String m){ JOptionPane.showMessageDialog(this, m, "Warning", JOptionPane.WARNING_MESSAGE); }
     /**
-     * Appends a line to the log text area.
-     * @param m message to append
+     * Adds a line to the activity log.
+     * @param m message to append, optionally starting with a [TAG]
      */
-    private void logMsg(String m){ log.append(m + "\n"); }
+    private void logMsg(String m){ activity.log(m); }
     /**
      * Builds the center panel containing the table and the log area,
      * and wires the live-search filter on the search field.
@@ -114,7 +173,15 @@ public class GuiApp extends JFrame {
         JPanel p = new JPanel(new BorderLayout());
         p.setBorder(new EmptyBorder(5,5,5,5));
         p.add(new JScrollPane(table), BorderLayout.CENTER);
-        p.add(new JScrollPane(log), BorderLayout.SOUTH);
+        JScrollPane logPane = new JScrollPane(log);
+        // rows are as wide as the visible area, so the width never depends on the entries
+        logPane.getViewport().addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override public void componentResized(java.awt.event.ComponentEvent e) {
+                log.setFixedCellWidth(logPane.getViewport().getWidth());
+            }
+        });
+        log.setFixedCellWidth(1000);
+        p.add(logPane, BorderLayout.SOUTH);
 
         // search
         searchField.getDocument().addDocumentListener(new DocumentListener() {
@@ -140,8 +207,11 @@ public class GuiApp extends JFrame {
         tb.add(btn("Update", e -> onUpdate()));
         tb.add(btn("Delete", e -> onDelete()));
         tb.add(btn("Export All", e -> onExportCsv()));
+        tb.add(btn("Backup Parts", e -> onExportParts()));
+        tb.add(btn("Restore Parts", e -> onImportParts()));
+        tb.add(btn("Find Duplicates", e -> onFindDuplicates()));
         tb.addSeparator();
-        tb.add(btn("Clear Log", e -> log.setText("")));
+        tb.add(btn("Clear Log", e -> activity.clear()));
         tb.add(btn("Exit", e -> doExit()));
 
         tb.add(Box.createHorizontalGlue());
@@ -196,6 +266,31 @@ public class GuiApp extends JFrame {
         }
     }
 
+    /** Exports the database as compressed part files into a chosen folder. */
+    private void onExportParts() {
+        JFileChooser c = new JFileChooser();
+        c.setDialogTitle("Select backup folder");
+        c.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (c.showSaveDialog(this)!=JFileChooser.APPROVE_OPTION) return;
+
+        String msg = store.exportPartitioned(c.getSelectedFile().toPath(),
+                Runtime.getRuntime().availableProcessors());
+        info(msg);
+        logMsg("[BACKUP] " + msg + " -> " + c.getSelectedFile().getAbsolutePath());
+    }
+
+    /** Restores a partitioned backup from a chosen folder. */
+    private void onImportParts() {
+        JFileChooser c = new JFileChooser();
+        c.setDialogTitle("Select backup folder");
+        c.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (c.showOpenDialog(this)!=JFileChooser.APPROVE_OPTION) return;
+
+        String msg = store.importPartitioned(c.getSelectedFile().toPath());
+        info(msg);
+        logMsg("[RESTORE] " + msg);
+        refreshTable();
+    }
 
     /**
      * Builds a simple input form for customer fields.
@@ -237,13 +332,115 @@ public class GuiApp extends JFrame {
         }
         String emailErr = CustomerStore.emailError(email);
         if (emailErr != null) { warn(emailErr); return; }
-        if (store.getByPhone(phone) != null) { warn("Phone already exists."); return; }
+        if (store.exists(phone)) { warn("Phone already exists."); return; }
+
+        Customer c = new Customer(phone,name,addr,email);
+        List<Customer> dups = store.findPossibleDuplicates(c);
+        if (!dups.isEmpty()) {
+            StringBuilder sb = new StringBuilder("Possible duplicate of:\n");
+            for (Customer d : dups) sb.append(describe(d)).append("\n");
+            sb.append("\nAdd anyway?");
+            if (JOptionPane.showConfirmDialog(this, sb.toString(), "Possible Duplicate",
+                    JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) return;
+        }
 
-        if (!store.insert(new Customer(phone,name,addr,email))) { warn("Insert failed."); return; }
+        if (!store.insert(c)) {
+            // another terminal may have added this phone after the index was loaded
+            warn(store.exists(phone) ? "Phone already exists." : "Insert failed.");
+            return;
+        }
         logMsg("[ADD] " + phone + " | " + name);
         refreshTable();
     }
 
+    /**
+     * Scans the table for likely duplicate customers and lets the user
+     * merge a cluster into its first record.
+     */
+    private void onFindDuplicates() {
+        List<List<Customer>> clusters = store.findDuplicateClusters();
+        logMsg("[DUPES] clusters=" + clusters.size());
+        if (clusters.isEmpty()) { info("No likely duplicates found."); return; }
+
+        DefaultListModel<String> model = new DefaultListModel<>();
+        for (List<Customer> g : clusters) {
+            StringBuilder sb = new StringBuilder();
+            for (Customer d : g) sb.append(sb.length() == 0 ? "" : "  ||  ").append(describe(d));
+            model.addElement(sb.toString());
+        }
+        JList<String> list = new JList<>(model);
+        JScrollPane sp = new JScrollPane(list);
+        sp.setPreferredSize(new Dimension(800, 300));
+
+        Object[] opts = {"Merge Selected", "Close"};
+        if (JOptionPane.showOptionDialog(this, sp, "Possible Duplicates", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.PLAIN_MESSAGE, null, opts, opts[1]) != 0) return;
+        int i = list.getSelectedIndex();
+        if (i < 0) { warn("Select a cluster"); return; }
+
+        mergeCluster(clusters.get(i));
+    }
+
+    /**
+     * Lets the user pick which record of a duplicate cluster to keep and
+     * which ones to drop, confirms, then merges.
+     *
+     * @param g customers that look like the same person
+     */
+    private void mergeCluster(List<Customer> g) {
+        JPanel p = new JPanel(new GridLayout(g.size() + 1, 3, 5, 5));
+        p.add(new JLabel("Keep")); p.add(new JLabel("Drop")); p.add(new JLabel("Customer"));
+        ButtonGroup keepGroup = new ButtonGroup();
+        JRadioButton[] keep = new JRadioButton[g.size()];
+        JCheckBox[] drop = new JCheckBox[g.size()];
+        for (int k = 0; k < g.size(); k++) {
+            keep[k] = new JRadioButton();
+            drop[k] = new JCheckBox();
+            keepGroup.add(keep[k]);
+            final int row = k;
+            // the kept record can never also be dropped
+            keep[k].addActionListener(e -> {
+                for (int j = 0; j < drop.length; j++) drop[j].setEnabled(j != row);
+                drop[row].setSelected(false);
+            });
+            p.add(keep[k]); p.add(drop[k]); p.add(new JLabel(describe(g.get(k))));
+        }
+        keep[0].doClick();
+
+        if (JOptionPane.showConfirmDialog(this, p, "Merge Duplicates",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+
+        Customer kept = null;
+        List<Customer> dropped = new java.util.ArrayList<>();
+        for (int k = 0; k < g.size(); k++) {
+            if (keep[k].isSelected()) kept = g.get(k);
+            else if (drop[k].isSelected()) dropped.add(g.get(k));
+        }
+        if (kept == null || dropped.isEmpty()) { warn("Choose a record to keep and at least one to drop."); return; }
+
+        StringBuilder sb = new StringBuilder("Keep:\n  " + describe(kept) + "\n\nDelete " + dropped.size() + " record(s):\n");
+        for (Customer d : dropped) sb.append("  ").append(describe(d)).append("\n");
+        if (JOptionPane.showConfirmDialog(this, sb.toString(), "Confirm Merge",
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.YES_OPTION) return;
+
+        if (store.merge(kept, dropped)) {
+            logMsg("[MERGE] " + kept.getPhoneNumber() + " <- " + dropped.size() + " record(s)");
+        } else {
+            warn("Merge failed.");
+        }
+        refreshTable();
+    }
+
+    /**
+     * Formats a customer as a single line for dialogs.
+     *
+     * @param c customer to describe
+     * @return phone, name and address joined with separators
+     */
+    private static String describe(Customer c) {
+        return c.getPhoneNumber() + " | " + c.getName() + " | " + c.getAddress();
+    }
+
     /**
      * Updates selected row onUpdate
      */
@@ -321,6 +518,7 @@ public class GuiApp extends JFrame {
     private void doExit(){
         if(JOptionPane.showConfirmDialog(this,"Exit?","Confirm",
                 JOptionPane.YES_NO_OPTION)==JOptionPane.YES_OPTION){
+            activity.close();
             System.exit(0);
         }
     }
@@ -0,0 +1,364 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * Load generator that simulates several intake terminals sharing one
+ * SQLite database. It drives {@link CustomerStore} from many threads
+ * (and optionally many JVM processes) with a mix of reads, writes and
+ * small CSV imports, then reports throughput, latency percentiles,
+ * busy/retry counts from {@link CustomerDao} and lost writes.
+ * <p>
+ * A lost write is a write or import row that should have succeeded (a new
+ * unique phone, or an update of a row that exists) but the store returned
+ * false. Reads that come back empty are reported separately as misses.
+ * <p>
+ * All processes start and stop on the same wall-clock window, so
+ * throughput is measured over one shared interval.
+ * <p>
+ * Example:
+ * <pre>
+ * java -cp .:sqlite-jdbc.jar LoadTest --threads 8 --processes 2 --seconds 20 --mix 70:25:5
+ *      --busy-timeout 0 --retries 5 --backoff 10
+ * </pre>
+ * Options (all optional):
+ * --db file (default: new temp file), --threads N, --processes P,
+ * --seconds S, --mix read:write:import, --seed-rows N, --import-rows N,
+ * --busy-timeout ms, --retries N, --backoff ms, --max-backoff ms, --seed N,
+ * --start-delay ms (time children get to start before the window opens).
+ */
+public class LoadTest {
+
+    private static final int READ = 0, WRITE = 1, IMPORT = 2;
+    private static final String[] OP_NAMES = {"read", "write", "import"};
+    private static final String RESULT_PREFIX = "LOADTEST-RESULT ";
+    /** New phones are worker(2) + thread(2) + sequence(7) digits. */
+    private static final long MAX_SEQ = 10_000_000L;
+    private static final int MAX_WORKERS = 100;
+
+    /**
+     * Latency histogram with log-scale buckets (8 per power of two, in
+     * microseconds). Thread safe, and can be merged across processes.
+     */
+    static final class Histogram {
+        static final int BUCKETS = 8 * 40;
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            long us = Math.max(1, nanos / 1000);
+            int b = (int) Math.min(BUCKETS - 1, Math.round(Math.log(us) / Math.log(2) * 8));
+            counts.incrementAndGet(b);
+        }
+
+        long total() {
+            long t = 0;
+            for (int i = 0; i < BUCKETS; i++) t += counts.get(i);
+            return t;
+        }
+
+        /** @return upper bound of the bucket holding percentile p, in milliseconds */
+        double percentileMs(double p) {
+            long total = total();
+            if (total == 0) return 0;
+            long want = (long) Math.ceil(total * p), seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= want) return Math.pow(2, (i + 0.5) / 8) / 1000.0;
+            }
+            return Math.pow(2, BUCKETS / 8.0) / 1000.0;
+        }
+
+        String encode() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts.get(i) != 0) sb.append(sb.length() == 0 ? "" : "/").append(i).append('x').append(counts.get(i));
+            }
+            return sb.toString();
+        }
+
+        void addEncoded(String s) {
+            if (s.isEmpty()) return;
+            for (String part : s.split("/")) {
+                String[] kv = part.split("x");
+                counts.addAndGet(Integer.parseInt(kv[0]), Long.parseLong(kv[1]));
+            }
+        }
+    }
+
+    /** Totals for one run; merged from all threads and processes. */
+    static final class Stats {
+        final Histogram[] latency = {new Histogram(), new Histogram(), new Histogram()};
+        final AtomicLongArray ops = new AtomicLongArray(3);
+        final AtomicLongArray lost = new AtomicLongArray(3);
+        long busy, retried, gaveUp, exhausted;
+        double seconds;
+
+        String encode() {
+            StringBuilder sb = new StringBuilder(RESULT_PREFIX);
+            for (int i = 0; i < 3; i++) {
+                sb.append(OP_NAMES[i]).append('=').append(ops.get(i)).append(',').append(lost.get(i))
+                  .append(',').append(latency[i].encode()).append(';');
+            }
+            sb.append("busy=").append(busy).append(";retries=").append(retried)
+              .append(";gaveup=").append(gaveUp).append(";exhausted=").append(exhausted)
+              .append(";seconds=").append(seconds);
+            return sb.toString();
+        }
+
+        void addEncoded(String line) {
+            for (String field : line.substring(RESULT_PREFIX.length()).split(";")) {
+                String[] kv = field.split("=", 2);
+                switch (kv[0]) {
+                    case "busy" -> busy += Long.parseLong(kv[1]);
+                    case "retries" -> retried += Long.parseLong(kv[1]);
+                    case "gaveup" -> gaveUp += Long.parseLong(kv[1]);
+                    case "exhausted" -> exhausted += Long.parseLong(kv[1]);
+                    case "seconds" -> seconds = Math.max(seconds, Double.parseDouble(kv[1]));
+                    default -> {
+                        int op = List.of(OP_NAMES).indexOf(kv[0]);
+                        String[] v = kv[1].split(",", 3);
+                        ops.addAndGet(op, Long.parseLong(v[0]));
+                        lost.addAndGet(op, Long.parseLong(v[1]));
+                        latency[op].addEncoded(v[2]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the load test. See the class comment for the options.
+     *
+     * @param args command line options
+     * @throws Exception if the database or child processes cannot be set up
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = parseArgs(args);
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "4"));
+        int processes = Integer.parseInt(opt.getOrDefault("processes", "1"));
+        int seconds = Integer.parseInt(opt.getOrDefault("seconds", "10"));
+        int seedRows = Integer.parseInt(opt.getOrDefault("seed-rows", "1000"));
+        int[] mix = parseMix(opt.getOrDefault("mix", "70:25:5"));
+        boolean child = opt.containsKey("child");
+        if (threads < 1 || threads > MAX_WORKERS || processes < 1 || processes > MAX_WORKERS)
+            throw new IllegalArgumentException("threads and processes must be 1.." + MAX_WORKERS);
+
+        String db = opt.get("db");
+        if (db == null) {
+            File f = File.createTempFile("loadtest", ".db");
+            f.deleteOnExit();
+            db = f.getAbsolutePath();
+            opt.put("db", db);
+        }
+        ConnectionManager.setDatabasePath(db);
+        ConnectionManager.setBusyTimeout(Integer.parseInt(opt.getOrDefault("busy-timeout", "-1")));
+        CustomerDao.configureRetry(
+                Integer.parseInt(opt.getOrDefault("retries", "5")),
+                Long.parseLong(opt.getOrDefault("backoff", "10")),
+                Long.parseLong(opt.getOrDefault("max-backoff", "1000")));
+        CustomerStore store = new CustomerStore();
+
+        if (!child) {
+            seed(store, seedRows);
+            System.out.println("db=" + db + " threads=" + threads + " processes=" + processes
+                    + " seconds=" + seconds + " mix=" + mix[0] + ":" + mix[1] + ":" + mix[2]);
+        }
+
+        // shared wall-clock window: children get a head start to boot their JVMs
+        if (!child) {
+            long delay = Long.parseLong(opt.getOrDefault("start-delay", processes > 1 ? "3000" : "0"));
+            opt.put("start-at", String.valueOf(System.currentTimeMillis() + delay));
+        }
+        long startAt = Long.parseLong(opt.get("start-at"));
+        List<Process> children = new ArrayList<>();
+        if (!child) {
+            for (int p = 1; p < processes; p++) children.add(startChild(opt, p));
+        }
+
+        int worker = Integer.parseInt(opt.getOrDefault("worker", "0"));
+        long seed = Long.parseLong(opt.getOrDefault("seed", "42"));
+        int importRows = Integer.parseInt(opt.getOrDefault("import-rows", "50"));
+        Stats stats = run(store, threads, startAt, seconds, mix, seedRows, importRows, worker, seed);
+
+        if (child) {
+            System.out.println(stats.encode());
+            return;
+        }
+        for (Process p : children) {
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith(RESULT_PREFIX)) stats.addEncoded(line);
+                    else System.out.println("[child] " + line);
+                }
+            }
+            p.waitFor();
+        }
+        report(stats);
+    }
+
+    // fills the table with rows that readers and updaters pick from
+    private static void seed(CustomerStore store, int rows) {
+        for (int i = 0; i < rows; i++) {
+            store.insert(new Customer(seedPhone(i), "Seed Customer " + i, i + " Main St", ""));
+        }
+    }
+
+    private static String seedPhone(int i) { return String.format("2%09d", i); }
+
+    // unique per worker and thread (11 digits, seed phones have 10), so inserts never collide
+    private static String newPhone(int worker, int thread, long seq) {
+        if (seq >= MAX_SEQ) throw new IllegalStateException("phone sequence exhausted");
+        return String.format("%02d%02d%07d", worker, thread, seq);
+    }
+
+    private static Stats run(CustomerStore store, int threads, long startAt, int seconds, int[] mix,
+                             int seedRows, int importRows, int worker, long seed) throws InterruptedException {
+        Stats stats = new Stats();
+        CustomerDao.resetStats();
+        long endAt = startAt + seconds * 1000L;
+        AtomicLong exhausted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> pool = new ArrayList<>();
+        int total = mix[0] + mix[1] + mix[2];
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread th = new Thread(() -> {
+                Random rnd = new Random(seed * 31 + worker * 1009L + thread);
+                long seq = 0;
+                try { start.await(); } catch (InterruptedException e) { return; }
+                while (System.currentTimeMillis() < endAt) {
+                    int pick = rnd.nextInt(total);
+                    int op = pick < mix[0] ? READ : pick < mix[0] + mix[1] ? WRITE : IMPORT;
+                    // stop rather than reuse phones, which would show up as lost writes
+                    if (op != READ && seq + importRows > MAX_SEQ) { exhausted.incrementAndGet(); break; }
+                    long t0 = System.nanoTime();
+                    boolean ok;
+                    switch (op) {
+                        case READ -> ok = seedRows == 0
+                                || store.getByPhone(seedPhone(rnd.nextInt(seedRows))) != null;
+                        case WRITE -> {
+                            if (seedRows == 0 || rnd.nextBoolean()) {
+                                ok = store.insert(new Customer(newPhone(worker, thread, seq++),
+                                        "Load Customer " + seq, seq + " Elm St", ""));
+                            } else {
+                                int i = rnd.nextInt(seedRows);
+                                ok = store.update(new Customer(seedPhone(i),
+                                        "Seed Customer " + i, rnd.nextInt(10000) + " Oak Ave", ""));
+                            }
+                        }
+                        default -> {
+                            ok = importBatch(store, worker, thread, seq, importRows);
+                            seq += importRows;
+                        }
+                    }
+                    stats.latency[op].record(System.nanoTime() - t0);
+                    stats.ops.incrementAndGet(op);
+                    if (!ok) stats.lost.incrementAndGet(op);
+                }
+            }, "terminal-" + worker + "-" + t);
+            pool.add(th);
+            th.start();
+        }
+        long wait = startAt - System.currentTimeMillis();
+        if (wait > 0) Thread.sleep(wait);
+        long opened = System.currentTimeMillis();
+        start.countDown();
+        for (Thread th : pool) th.join();
+        stats.seconds = Math.max(1, endAt - opened) / 1000.0;
+        stats.exhausted = exhausted.get();
+        stats.busy = CustomerDao.busyErrors();
+        stats.retried = CustomerDao.retries();
+        stats.gaveUp = CustomerDao.gaveUp();
+        return stats;
+    }
+
+    // writes a small CSV of new rows and imports it; false if any row was skipped
+    private static boolean importBatch(CustomerStore store, int worker, int thread, long seq, int rows) {
+        try {
+            Path csv = Files.createTempFile("loadtest", ".csv");
+            try {
+                try (BufferedWriter bw = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                    for (int i = 0; i < rows; i++) {
+                        bw.write(newPhone(worker, thread, seq + i) + ",Import Customer,1 Pine Rd,\n");
+                    }
+                }
+                String msg = store.importCsv(csv);
+                return msg.startsWith("Total") && msg.endsWith("Skipped: 0");
+            } finally {
+                Files.deleteIfExists(csv);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static Process startChild(Map<String, String> opt, int worker) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("LoadTest");
+        for (Map.Entry<String, String> e : opt.entrySet()) {
+            if (e.getKey().equals("processes") || e.getKey().equals("worker")) continue;
+            cmd.add("--" + e.getKey());
+            cmd.add(e.getValue());
+        }
+        cmd.add("--child");
+        cmd.add("true");
+        cmd.add("--worker");
+        cmd.add(String.valueOf(worker));
+        return new ProcessBuilder(cmd).redirectErrorStream(true).start();
+    }
+
+    private static void report(Stats s) {
+        long all = 0, writes = 0, lost = 0;
+        System.out.printf("%-7s %9s %10s %8s %8s %8s %8s %7s%n",
+                "op", "count", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "failed");
+        for (int i = 0; i < 3; i++) {
+            Histogram h = s.latency[i];
+            long n = s.ops.get(i);
+            all += n;
+            if (i != READ) { writes += n; lost += s.lost.get(i); }
+            System.out.printf("%-7s %9d %10.1f %8.2f %8.2f %8.2f %8.2f %7d%n", OP_NAMES[i], n, n / s.seconds,
+                    h.percentileMs(0.50), h.percentileMs(0.90), h.percentileMs(0.99), h.percentileMs(0.999),
+                    s.lost.get(i));
+        }
+        System.out.printf("total   %9d %10.1f ops/s over %.1fs%n", all, all / s.seconds, s.seconds);
+        System.out.printf("busy errors=%d retries=%d gave up=%d%n", s.busy, s.retried, s.gaveUp);
+        System.out.printf("read misses=%d lost writes=%d of %d write/import ops (%.3f%%)%n",
+                s.lost.get(READ), lost, writes, writes == 0 ? 0.0 : 100.0 * lost / writes);
+        if (s.exhausted > 0)
+            System.out.println("warning: " + s.exhausted + " thread(s) stopped early, phone sequence exhausted");
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> m = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Bad option: " + args[i]);
+            m.put(args[i].substring(2), args[i + 1]);
+        }
+        return m;
+    }
+
+    private static int[] parseMix(String s) {
+        String[] p = s.split(":");
+        if (p.length != 3) throw new IllegalArgumentException("Mix must be read:write:import, e.g. 70:25:5");
+        int[] mix = {Integer.parseInt(p[0]), Integer.parseInt(p[1]), Integer.parseInt(p[2])};
+        if (mix[0] + mix[1] + mix[2] <= 0) throw new IllegalArgumentException("Mix must not be all zero");
+        return mix;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * In-memory set of every customer phone number, used to answer
+ * "does this phone already exist?" without going to the database.
+ * Phones are 7 to 11 digits, so each one is packed into a single
+ * {@code long} and stored in an open-addressing hash table (no boxing,
+ * 8 bytes per slot). A Bloom filter sits in front of the table so most
+ * misses are answered from a small bit array. The table is not limited to
+ * powers of two, so an index sized up front for 30 million phones takes
+ * about 340 MB for the table plus 36 MB for the filter.
+ * <p>
+ * {@link CustomerStore} loads the index from the database at startup and
+ * then adds its own writes, so it knows every row present at startup plus
+ * this store's changes. Rows written later by other terminals are missing,
+ * so callers must still treat the database as the final word (inserts use
+ * INSERT OR IGNORE, so a stale index can never create a duplicate row).
+ */
+public class PhoneIndex {
+
+    private static final double MAX_LOAD = 0.7;
+    private static final int BLOOM_BITS_PER_KEY = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private long[] table;   // 0 = empty slot; keys are never 0
+    private int size = 0;
+    private int capacity;   // keys the table holds before it grows
+    private long[] bloom;
+    private int bloomBits;
+
+    /** Creates an empty index sized for a small shop. */
+    public PhoneIndex() { this(1024); }
+
+    /**
+     * Creates an empty index.
+     *
+     * @param expected number of phones expected, used to size the table and filter
+     */
+    public PhoneIndex(int expected) {
+        allocate(expected);
+    }
+
+    /**
+     * Packs a digits-only phone into a long. The digit count is kept in the
+     * low 4 bits so "0123456" and "00123456" stay different keys.
+     *
+     * @param phone normalized phone number
+     * @return packed key, or -1 if the phone is not 7 to 11 digits
+     */
+    public static long key(String phone) {
+        if (phone == null || !CustomerStore.isValidPhone(phone)) return -1;
+        long v = 0;
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return (v << 4) | phone.length();
+    }
+
+    /**
+     * Adds a phone to the index.
+     *
+     * @param phone normalized phone number
+     * @return true if it was not already present
+     */
+    public synchronized boolean add(String phone) {
+        long k = key(phone);
+        if (k < 0) return false;
+        if (size + 1 > capacity) grow();
+        for (int i = slot(k); ; i = next(i)) {
+            if (table[i] == k) return false;
+            if (table[i] == 0) {
+                table[i] = k;
+                size++;
+                bloomAdd(k);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes a phone from the index.
+     * The Bloom filter keeps its bits; the table check still answers false.
+     *
+     * @param phone normalized phone number
+     * @return true if it was present
+     */
+    public synchronized boolean remove(String phone) {
+        long k = key(phone);
+        if (k < 0) return false;
+        int i = slot(k);
+        while (table[i] != k) {
+            if (table[i] == 0) return false;
+            i = next(i);
+        }
+        // backward-shift delete keeps probe chains intact without tombstones
+        int n = table.length;
+        int hole = i;
+        for (int j = next(i); table[j] != 0; j = next(j)) {
+            int home = slot(table[j]);
+            if (Math.floorMod(j - home, n) >= Math.floorMod(j - hole, n)) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns true if the phone is in the index.
+     *
+     * @param phone normalized phone number
+     * @return true if present
+     */
+    public synchronized boolean contains(String phone) {
+        long k = key(phone);
+        if (k < 0 || !bloomMightContain(k)) return false;
+        for (int i = slot(k); ; i = next(i)) {
+            if (table[i] == k) return true;
+            if (table[i] == 0) return false;
+        }
+    }
+
+    /** @return number of phones in the index */
+    public synchronized int size() { return size; }
+
+    /** Removes every phone from the index. */
+    public synchronized void clear() {
+        allocate(16);
+    }
+
+    // the table gets expected / MAX_LOAD slots, the filter BLOOM_BITS_PER_KEY bits per expected phone
+    private void allocate(int expected) {
+        expected = Math.max(16, expected);
+        table = new long[(int) Math.min(Integer.MAX_VALUE - 8, (long) (expected / MAX_LOAD) + 1)];
+        capacity = (int) (table.length * MAX_LOAD);
+        size = 0;
+        bloomBits = (int) Math.min(Integer.MAX_VALUE - 63, (long) expected * BLOOM_BITS_PER_KEY);
+        bloom = new long[(bloomBits + 63) / 64];
+    }
+
+    // doubles the table and rebuilds the filter, which also drops bits of removed phones
+    private void grow() {
+        long[] old = table;
+        allocate((int) Math.min(Integer.MAX_VALUE, 2L * capacity));
+        for (long k : old) {
+            if (k == 0) continue;
+            int i = slot(k);
+            while (table[i] != 0) i = next(i);
+            table[i] = k;
+            size++;
+            bloomAdd(k);
+        }
+    }
+
+    // maps the high 32 hash bits onto [0, table.length) without a modulo
+    private int slot(long k) { return (int) (((mix(k) >>> 32) * table.length) >>> 32); }
+
+    private int next(int i) { return i + 1 == table.length ? 0 : i + 1; }
+
+    // Murmur3 finalizer, spreads the packed digits over all bits
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private void bloomAdd(long k) {
+        long h = mix(k ^ 0x9e3779b97f4a7c15L);
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bloomBits);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private boolean bloomMightContain(long k) {
+        long h = mix(k ^ 0x9e3779b97f4a7c15L);
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bloomBits);
+            if ((bloom[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+}